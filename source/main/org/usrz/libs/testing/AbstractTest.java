@@ -15,7 +15,11 @@
  * ========================================================================== */
 package org.usrz.libs.testing;
 
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.Listeners;
 import org.usrz.libs.logging.Log;
 import org.usrz.libs.logging.Logging;
@@ -53,4 +57,115 @@ public abstract class AbstractTest extends Assert {
         }
         fail(exceptionType.getSimpleName() + " not thrown");
     }
+
+    /* ====================================================================== */
+
+    public static final void assertAllocatesAtMost(long bytes, Runnable runnable) {
+        assertAllocatesAtMost(bytes, Memory.WARMUP_ITERATIONS, Memory.MEASUREMENT_ITERATIONS, runnable);
+    }
+
+    public static final void assertAllocatesAtMost(long bytes, int warmupIterations, int measurementIterations, Runnable runnable) {
+        if (!Memory.isAllocationSupported()) throw new SkipException("Thread allocated memory not supported by this JVM");
+
+        final long[] allocations = Memory.allocations(warmupIterations, measurementIterations, runnable);
+        for (int x = 0; x < allocations.length; x ++) {
+            if (allocations[x] <= bytes) continue;
+            fail("Allocated " + allocations[x] + " bytes in iteration " + (x + 1) + " of " + allocations.length
+                 + " (after " + warmupIterations + " warmup iterations) exceeding budget of " + bytes + " bytes");
+        }
+    }
+
+    public static final void assertNoGc(Runnable runnable) {
+        assertGcAtMost(0, 0, runnable);
+    }
+
+    public static final void assertGcAtMost(long collections, long millis, Runnable runnable) {
+        assertGcAtMost(collections, millis, Memory.WARMUP_ITERATIONS, Memory.MEASUREMENT_ITERATIONS, Memory.MEASUREMENT_MILLIS, runnable);
+    }
+
+    /**
+     * Assert that running the action (after warmup) for at least the given
+     * number of iterations <em>and</em> milliseconds triggers no more than
+     * the specified garbage collections and collection time.
+     *
+     * <p>Garbage collections are counted JVM-wide: when other tests run in
+     * parallel their garbage is accounted for, too, and results are not
+     * reliable.</p>
+     */
+    public static final void assertGcAtMost(long collections, long millis, int warmupIterations, int measurementIterations, long measurementMillis, Runnable runnable) {
+        if (measurementIterations < 1) throw new IllegalArgumentException("At least one measurement iteration required");
+        for (int x = 0; x < warmupIterations; x ++) runnable.run();
+
+        /* Do not account for the garbage left behind by our warmup */
+        System.gc();
+
+        final long started = System.nanoTime();
+        final long duration = TimeUnit.MILLISECONDS.toNanos(measurementMillis);
+        final Memory.GarbageCollections before = Memory.collections();
+        long iterations = 0;
+        do {
+            runnable.run();
+            iterations ++;
+        } while ((iterations < measurementIterations) || ((System.nanoTime() - started) < duration));
+        final Memory.GarbageCollections gc = Memory.collections().since(before);
+
+        final String details = " (" + gc + ") running " + iterations + " iterations in "
+                             + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms"
+                             + "; collections are counted JVM-wide, unreliable with tests running in parallel";
+        if (gc.getCount() > collections)
+            fail("Expected at most " + collections + " garbage collections but got " + gc.getCount() + details);
+        if (gc.getTime() > millis)
+            fail("Expected at most " + millis + " ms of garbage collections but got " + gc.getTime() + " ms" + details);
+    }
+
+    /* ====================================================================== */
+
+    protected final Benchmark.Result benchmark(String name, Benchmark.Task task)
+    throws Exception {
+        return benchmark(name, Benchmark.WARMUP_ITERATIONS, Benchmark.MEASUREMENT_ITERATIONS, task);
+    }
+
+    protected final Benchmark.Result benchmark(String name, int warmupIterations, int measurementIterations, Benchmark.Task task)
+    throws Exception {
+        final Benchmark.Result result = Benchmark.run(name, warmupIterations, measurementIterations, task);
+        log.info("Benchmark %s", result);
+        return result;
+    }
+
+    public static final void assertFasterThan(Benchmark.Result result, Benchmark.Result baseline) {
+        assertFasterThan(result, baseline, 1);
+    }
+
+    public static final void assertFasterThan(Benchmark.Result result, Benchmark.Result baseline, double factor) {
+        if (factor <= 0) throw new IllegalArgumentException("Invalid factor " + factor);
+        if ((result.getMean() * factor) <= baseline.getMean()) return;
+        fail(String.format("Expected \"%s\" to be %.2fx faster than \"%s\" but it was %.2fx\n  %s\n  %s",
+                           result.getName(), factor, baseline.getName(),
+                           baseline.getMean() / result.getMean(), result, baseline));
+    }
+
+    /* ====================================================================== */
+
+    protected final Stress.Result stress(int threads, long operations, Stress.Action action)
+    throws InterruptedException {
+        return stress(Stress.run(threads, operations, action));
+    }
+
+    protected final Stress.Result stress(int threads, long duration, TimeUnit unit, Stress.Action action)
+    throws InterruptedException {
+        return stress(Stress.run(threads, duration, unit, action));
+    }
+
+    protected final Stress.Result stress(ThreadFactory factory, int threads, long operations, long duration, TimeUnit unit, Stress.Action action)
+    throws InterruptedException {
+        return stress(Stress.run(factory, threads, operations, unit.toNanos(duration), action));
+    }
+
+    private final Stress.Result stress(Stress.Result result) {
+        log.info("Stress %s", result);
+        if (result.getExceptions().isEmpty()) return result;
+        fail(result.getExceptions().size() + " exception(s) thrown by " + result.getThreads() + " threads",
+             result.getExceptions().get(0));
+        return result;
+    }
 }
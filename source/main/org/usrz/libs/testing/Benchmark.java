@@ -0,0 +1,225 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tiny in-process micro-benchmark harness, good enough to write quick
+ * performance guards inside normal TestNG runs.
+ *
+ * <p>Each benchmark first calibrates a <em>batch</em> size, so that one
+ * timed sample lasts at least {@link #SAMPLE_NANOS} (amortizing the cost and
+ * granularity of {@link System#nanoTime()}), then runs a number of warmup
+ * iterations (discarded) and of measurement iterations. Outliers outside the
+ * <em>Tukey fences</em> (1.5 times the interquartile range) are dropped.</p>
+ *
+ * <p>This is <em>not</em> a replacement for a proper harness like JMH: the
+ * code is run in the same JVM as all other tests, and results are only
+ * meaningful when compared against another benchmark in the same run.</p>
+ */
+public final class Benchmark {
+
+    /** The default number of warmup iterations. */
+    public static final int WARMUP_ITERATIONS = 10;
+    /** The default number of measurement iterations. */
+    public static final int MEASUREMENT_ITERATIONS = 20;
+    /** The minimum duration, in nanoseconds, of a single timed sample. */
+    public static final long SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private Benchmark() {
+        throw new IllegalStateException("Do not construct");
+    }
+
+    /* ====================================================================== */
+
+    public static final Result run(String name, Task task)
+    throws Exception {
+        return run(name, WARMUP_ITERATIONS, MEASUREMENT_ITERATIONS, task);
+    }
+
+    public static final Result run(String name, int warmupIterations, int measurementIterations, Task task)
+    throws Exception {
+        if (warmupIterations < 0) throw new IllegalArgumentException("Negative warmup iterations");
+        if (measurementIterations < 1) throw new IllegalArgumentException("At least one measurement iteration required");
+
+        final Blackhole blackhole = new Blackhole();
+
+        /* Calibrate our batch size, doubling it until it's long enough */
+        long batch = 1;
+        while (sample(task, blackhole, batch) < SAMPLE_NANOS) {
+            if (batch >= Long.MAX_VALUE / 2) break;
+            batch *= 2;
+        }
+
+        /* Warm up, let the JIT compiler do its job */
+        for (int x = 0; x < warmupIterations; x ++) sample(task, blackhole, batch);
+
+        /* Measure, each sample is in nanoseconds per operation */
+        final double[] samples = new double[measurementIterations];
+        for (int x = 0; x < measurementIterations; x ++) {
+            samples[x] = ((double) sample(task, blackhole, batch)) / batch;
+        }
+
+        return new Result(name, batch, samples);
+    }
+
+    private static final long sample(Task task, Blackhole blackhole, long batch)
+    throws Exception {
+        final long started = System.nanoTime();
+        for (long x = 0; x < batch; x ++) task.run(blackhole);
+        return System.nanoTime() - started;
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * A task to benchmark, computed values should be handed over to the
+     * {@link Blackhole} to avoid dead-code elimination.
+     */
+    public interface Task {
+
+        public void run(Blackhole blackhole)
+        throws Exception;
+
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * The result of a {@link Benchmark}, all timings are expressed in
+     * nanoseconds per operation.
+     */
+    public static final class Result {
+
+        /* Two-sided 95% Student-t critical values, for 1 to 30 degrees of freedom */
+        private static final double[] CRITICAL_T = {
+            12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+             2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+             2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+        };
+
+        private final String name;
+        private final long batch;
+        private final double[] samples;
+        private final int outliers;
+        private final double mean;
+        private final double deviation;
+
+        private Result(String name, long batch, double[] measurements) {
+            final double[] sorted = measurements.clone();
+            Arrays.sort(sorted);
+
+            /* Drop outliers outside of the Tukey fences */
+            final double q1 = percentile(sorted, 25);
+            final double q3 = percentile(sorted, 75);
+            final double low = q1 - 1.5 * (q3 - q1);
+            final double high = q3 + 1.5 * (q3 - q1);
+
+            int from = 0, to = sorted.length;
+            while ((from < to) && (sorted[from] < low)) from ++;
+            while ((to > from) && (sorted[to - 1] > high)) to --;
+
+            this.name = name;
+            this.batch = batch;
+            samples = Arrays.copyOfRange(sorted, from, to);
+            outliers = sorted.length - samples.length;
+
+            double sum = 0;
+            for (double sample: samples) sum += sample;
+            mean = sum / samples.length;
+
+            double squares = 0;
+            for (double sample: samples) squares += (sample - mean) * (sample - mean);
+            deviation = samples.length < 2 ? 0 : Math.sqrt(squares / (samples.length - 1));
+        }
+
+        private static final double critical(int degrees) {
+            /* Past the table, round degrees of freedom down (conservative) */
+            if (degrees <= CRITICAL_T.length) return CRITICAL_T[degrees - 1];
+            if (degrees < 40) return 2.042;
+            if (degrees < 60) return 2.021;
+            if (degrees < 120) return 2.000;
+            return 1.980;
+        }
+
+        private static final double percentile(double[] sorted, double percentile) {
+            final int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getBatchSize() {
+            return batch;
+        }
+
+        public double[] getSamples() {
+            return samples.clone();
+        }
+
+        public int getOutliers() {
+            return outliers;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getStandardDeviation() {
+            return deviation;
+        }
+
+        public double getMin() {
+            return samples[0];
+        }
+
+        public double getMax() {
+            return samples[samples.length - 1];
+        }
+
+        public double getPercentile(double percentile) {
+            if ((percentile < 0) || (percentile > 100))
+                throw new IllegalArgumentException("Invalid percentile " + percentile);
+            return percentile(samples, percentile);
+        }
+
+        /** The half-width of the 95% confidence interval around the mean. */
+        public double getError() {
+            if (samples.length < 2) return 0;
+            return critical(samples.length - 1) * deviation / Math.sqrt(samples.length);
+        }
+
+        public double getLowerBound() {
+            return mean - getError();
+        }
+
+        public double getUpperBound() {
+            return mean + getError();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.3f +/- %.3f ns/op (p50=%.3f, p90=%.3f, p99=%.3f, samples=%d, outliers=%d, batch=%d)",
+                                 name, mean, getError(),
+                                 getPercentile(50), getPercentile(90), getPercentile(99),
+                                 samples.length, outliers, batch);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+/**
+ * A sink for values computed by {@linkplain Benchmark benchmarks}, preventing
+ * the JIT compiler from eliminating the code producing them.
+ *
+ * <p>Primitives are compared against two different volatile values (they
+ * can never match both) and objects are only occasionally published to a
+ * field, so consuming costs a few nanoseconds at most.</p>
+ */
+public final class Blackhole {
+
+    private volatile int int1 = 1, int2 = 2;
+    private volatile long long1 = 1, long2 = 2;
+    private volatile double double1 = 1, double2 = 2;
+    private volatile boolean boolean1 = false, boolean2 = true;
+
+    private int random = (int) System.nanoTime();
+    private int mask = 1;
+    private Object object;
+
+    Blackhole() {
+        /* Only constructed by benchmarks */
+    }
+
+    public final void consume(int value) {
+        if ((value == int1) & (value == int2)) throw new IllegalStateException("Should never happen");
+    }
+
+    public final void consume(long value) {
+        if ((value == long1) & (value == long2)) throw new IllegalStateException("Should never happen");
+    }
+
+    public final void consume(double value) {
+        if ((value == double1) & (value == double2)) throw new IllegalStateException("Should never happen");
+    }
+
+    public final void consume(boolean value) {
+        if ((value == boolean1) & (value == boolean2)) throw new IllegalStateException("Should never happen");
+    }
+
+    public final void consume(Object value) {
+        /* Linear congruential generator, publish with decreasing frequency */
+        random = random * 1664525 + 1013904223;
+        if ((random & mask) == 0) {
+            object = value;
+            mask = (mask << 1) + 1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        /* Reference the published object, so that it is never dead */
+        return "Blackhole[" + System.identityHashCode(object) + "]";
+    }
+}
@@ -0,0 +1,297 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A bundle of fixtures, packed as a single ZIP archive on the class path.
+ *
+ * <p>Entries are looked up by name in the archive's central directory, so
+ * reading a single entry never scans the whole archive. Entries are only
+ * extracted (into a temporary directory owned by the bundle) when first
+ * {@linkplain #file(String) touched}, or all together, in parallel, by
+ * {@link #extract()}.</p>
+ *
+ * <p>Bundles are thread safe, and can be shared by tests running in
+ * parallel: their files are never tracked by any {@link Fixtures} scope,
+ * and are deleted when the bundle is {@linkplain #close() closed} (or, at
+ * the latest, when the JVM exits).</p>
+ */
+public final class Bundle implements Closeable {
+
+    private final ConcurrentMap<String, Future<File>> extracted = new ConcurrentHashMap<>();
+    private final String name;
+    private final ZipFile zip;
+    private final File temporary;
+    private final Set<String> names;
+    private File directory;
+    private boolean closed = false;
+
+    private Bundle(String name, File file, boolean temporary)
+    throws IOException {
+        this.name = name;
+        this.temporary = temporary ? file : null;
+        zip = new ZipFile(file);
+
+        final Set<String> names = new LinkedHashSet<>();
+        final Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            final ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory()) names.add(entry.getName());
+        }
+        this.names = Collections.unmodifiableSet(names);
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Open the bundle stored in the specified resource, relative to the
+     * calling class (like {@link IO#resource(String)}).
+     */
+    public static final Bundle open(String resource)
+    throws IOException {
+        final Class<?> clazz = IO.caller();
+        final URL url = clazz.getResource(resource);
+        if (url == null) throw new FileNotFoundException("Unable to find bundle \"" + resource + "\" for class " + clazz.getName());
+        return open(url);
+    }
+
+    /**
+     * Open the bundle stored in the specified {@link URL}, copying it to a
+     * temporary file first when it is not a local file.
+     */
+    public static final Bundle open(URL url)
+    throws IOException {
+        if ("file".equals(url.getProtocol())) try {
+            return new Bundle(url.toString(), new File(url.toURI()), false);
+        } catch (URISyntaxException | IllegalArgumentException exception) {
+            /* Weird file URL, simply copy it */
+        }
+
+        final File file = IO.makeTempFile("bundle", "zip", false);
+        try {
+            IO.copy(url, file);
+            return new Bundle(url.toString(), file, true);
+        } catch (IOException | RuntimeException exception) {
+            IO.delete(file);
+            throw exception;
+        }
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Return the names of all (non-directory) entries in this bundle.
+     */
+    public Set<String> names() {
+        return names;
+    }
+
+    /**
+     * Open the named entry, reading it straight out of the archive.
+     */
+    public InputStream entry(String name)
+    throws IOException {
+        final InputStream input = zip.getInputStream(find(name));
+        Fixtures.track(input);
+        return input;
+    }
+
+    /**
+     * Read the named entry, straight out of the archive.
+     */
+    public byte[] read(String name)
+    throws IOException {
+        return IO.read(entry(name));
+    }
+
+    /**
+     * Return the named entry as a {@link File}, extracting it the first time
+     * it is requested.
+     */
+    public File file(final String name)
+    throws IOException {
+        Future<File> future = extracted.get(name);
+        if (future == null) {
+            final ZipEntry entry = find(name);
+            final FutureTask<File> task = new FutureTask<>(new Callable<File>() {
+                @Override
+                public File call()
+                throws IOException {
+                    return extract(entry, directory());
+                }
+            });
+
+            /* Only the first thread putting the task actually extracts */
+            future = extracted.putIfAbsent(name, task);
+            if (future == null) {
+                future = task;
+                task.run();
+            }
+        }
+
+        try {
+            return get(future);
+        } catch (IOException | RuntimeException | Error exception) {
+            /* Do not cache failures, let the next caller try again */
+            extracted.remove(name, future);
+            throw exception;
+        }
+    }
+
+    /**
+     * Extract all entries in parallel, returning the directory (owned by this
+     * bundle) holding them.
+     */
+    public File extract()
+    throws IOException {
+        final File directory = directory();
+        extract(null);
+        return directory;
+    }
+
+    /**
+     * Extract all entries in parallel into the specified directory, which
+     * is not owned (nor deleted) by this bundle.
+     */
+    File extractTo(File directory)
+    throws IOException {
+        extract(directory.getCanonicalFile());
+        return directory;
+    }
+
+    /* Extract all entries in our own directory (null) or the specified one */
+    private void extract(final File directory)
+    throws IOException {
+        if (names.isEmpty()) return;
+
+        final int threads = Math.min(names.size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<File>> futures = new ArrayList<>();
+            for (final String name: names) {
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call()
+                    throws IOException {
+                        return directory == null ? file(name) : extract(find(name), directory);
+                    }
+                }));
+            }
+            for (Future<File> future: futures) get(future);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Close this bundle, deleting all its extracted entries.
+     */
+    @Override
+    public void close()
+    throws IOException {
+        final File directory;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            directory = this.directory;
+            this.directory = null;
+        }
+
+        try {
+            zip.close();
+        } finally {
+            extracted.clear();
+            if (directory != null) IO.delete(directory);
+            if (temporary != null) IO.delete(temporary);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Bundle[" + name + "]";
+    }
+
+    /* ====================================================================== */
+
+    private ZipEntry find(String name)
+    throws FileNotFoundException {
+        final ZipEntry entry = zip.getEntry(name);
+        if ((entry == null) || entry.isDirectory())
+            throw new FileNotFoundException("Unable to find entry \"" + name + "\" in " + this);
+        return entry;
+    }
+
+    private synchronized File directory()
+    throws IOException {
+        if (closed) throw new IOException(this + " closed");
+        if (directory == null) directory = IO.makeTempDir("bundle", "dir", false).getCanonicalFile();
+        return directory;
+    }
+
+    private File extract(ZipEntry entry, File directory)
+    throws IOException {
+        final File file = new File(directory, entry.getName()).getCanonicalFile();
+        if (!file.getPath().startsWith(directory.getPath() + File.separator))
+            throw new IOException("Entry \"" + entry.getName() + "\" outside of bundle directory");
+
+        final File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+            throw new IOException("Unable to create directory " + parent);
+
+        IO.copy(zip.getInputStream(entry), file);
+        return file;
+    }
+
+    private static final File get(Future<File> future)
+    throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted extracting bundle", exception);
+        } catch (ExecutionException exception) {
+            final Throwable cause = exception.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException("Exception extracting bundle", cause);
+        }
+    }
+}
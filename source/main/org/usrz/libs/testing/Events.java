@@ -0,0 +1,255 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import java.io.File;
+import java.net.InetAddress;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events emitted by this library.
+ *
+ * <p>Every event is started by a <code>begin...()</code> method, returning
+ * an opaque token (or <b>null</b> when the event is not being recorded, or
+ * when JFR is not available in this JVM) which is then passed to the
+ * matching <code>end...()</code> method. When no recording is running
+ * nothing is ever allocated, and derived values (file sizes, addresses)
+ * are only computed for events which are actually committed.</p>
+ *
+ * <p>The {@value #SETTINGS} resource, in this package, is a JFR settings
+ * profile enabling all these events alongside the basic JVM ones.</p>
+ */
+public final class Events {
+
+    /** The JFR settings profile bundled with this library. */
+    public static final String SETTINGS = "testing.jfc";
+
+    private static final boolean available;
+
+    static {
+        boolean jfr = false;
+        try {
+            Class.forName("jdk.jfr.Event");
+            jfr = true;
+        } catch (ClassNotFoundException | LinkageError error) {
+            /* No flight recorder in this JVM */
+        }
+        available = jfr;
+    }
+
+    private Events() {
+        throw new IllegalStateException("Do not construct");
+    }
+
+    /* ====================================================================== */
+
+    static final Object beginTempFile() {
+        return available ? TempFileEvent.start() : null;
+    }
+
+    static final void endTempFile(Object token, String operation, File file) {
+        if (token != null) TempFileEvent.stop(token, operation, file, -1);
+    }
+
+    static final void endTempFile(Object token, String operation, File file, long bytes) {
+        if (token != null) TempFileEvent.stop(token, operation, file, bytes);
+    }
+
+    static final Object beginProcess() {
+        return available ? ProcessEvent.start() : null;
+    }
+
+    static final void endProcess(Object token, String[] commandLine, int exitValue, long outputBytes, long errorBytes) {
+        if (token != null) ProcessEvent.stop(token, commandLine, exitValue, outputBytes, errorBytes);
+    }
+
+    static final Object beginServerPort() {
+        return available ? ServerPortEvent.start() : null;
+    }
+
+    static final void endServerPort(Object token, InetAddress address, int port, int attempts) {
+        if (token != null) ServerPortEvent.stop(token, address, port, attempts);
+    }
+
+    static final Object beginTest() {
+        return available ? TestEvent.start() : null;
+    }
+
+    static final void endTest(Object token, String className, String methodName, String status) {
+        if (token != null) TestEvent.stop(token, className, methodName, status);
+    }
+
+    /* ====================================================================== */
+
+    @Name("org.usrz.libs.testing.TempFile")
+    @Label("Temporary File")
+    @Description("Creation, copying or deletion of a temporary file")
+    @Category({"USRZ", "Testing"})
+    static final class TempFileEvent extends Event {
+
+        private static final EventType type = EventType.getEventType(TempFileEvent.class);
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Path")
+        String path;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        private static final Object start() {
+            if (!type.isEnabled()) return null;
+            final TempFileEvent event = new TempFileEvent();
+            event.begin();
+            return event;
+        }
+
+        private static final void stop(Object token, String operation, File file, long bytes) {
+            final TempFileEvent event = (TempFileEvent) token;
+            event.end();
+            if (!event.shouldCommit()) return;
+            event.operation = operation;
+            event.path = file == null ? null : file.getPath();
+            event.bytes = bytes < 0 ? file.length() : bytes;
+            event.commit();
+        }
+    }
+
+    @Name("org.usrz.libs.testing.Process")
+    @Label("Process")
+    @Description("A child process, from its launch to its exit")
+    @Category({"USRZ", "Testing"})
+    static final class ProcessEvent extends Event {
+
+        private static final EventType type = EventType.getEventType(ProcessEvent.class);
+
+        @Label("Command Line")
+        String commandLine;
+
+        @Label("Exit Value")
+        int exitValue;
+
+        @Label("Output Bytes")
+        @DataAmount
+        long outputBytes;
+
+        @Label("Error Bytes")
+        @DataAmount
+        long errorBytes;
+
+        private static final Object start() {
+            if (!type.isEnabled()) return null;
+            final ProcessEvent event = new ProcessEvent();
+            event.begin();
+            return event;
+        }
+
+        private static final void stop(Object token, String[] commandLine, int exitValue, long outputBytes, long errorBytes) {
+            final ProcessEvent event = (ProcessEvent) token;
+            event.end();
+            if (!event.shouldCommit()) return;
+            final StringBuilder builder = new StringBuilder();
+            for (String string: commandLine) {
+                if (builder.length() > 0) builder.append(' ');
+                builder.append(string);
+            }
+            event.commandLine = builder.toString();
+            event.exitValue = exitValue;
+            event.outputBytes = outputBytes;
+            event.errorBytes = errorBytes;
+            event.commit();
+        }
+    }
+
+    @Name("org.usrz.libs.testing.ServerPort")
+    @Label("Server Port")
+    @Description("Allocation of a free server port")
+    @Category({"USRZ", "Testing"})
+    static final class ServerPortEvent extends Event {
+
+        private static final EventType type = EventType.getEventType(ServerPortEvent.class);
+
+        @Label("Address")
+        String address;
+
+        @Label("Port")
+        int port;
+
+        @Label("Attempts")
+        int attempts;
+
+        private static final Object start() {
+            if (!type.isEnabled()) return null;
+            final ServerPortEvent event = new ServerPortEvent();
+            event.begin();
+            return event;
+        }
+
+        private static final void stop(Object token, InetAddress address, int port, int attempts) {
+            final ServerPortEvent event = (ServerPortEvent) token;
+            event.end();
+            if (!event.shouldCommit()) return;
+            event.address = address.getHostAddress();
+            event.port = port;
+            event.attempts = attempts;
+            event.commit();
+        }
+    }
+
+    @Name("org.usrz.libs.testing.Test")
+    @Label("Test")
+    @Description("Execution of a single test method")
+    @Category({"USRZ", "Testing"})
+    static final class TestEvent extends Event {
+
+        private static final EventType type = EventType.getEventType(TestEvent.class);
+
+        @Label("Test Class")
+        String className;
+
+        @Label("Test Method")
+        String methodName;
+
+        @Label("Status")
+        String status;
+
+        private static final Object start() {
+            if (!type.isEnabled()) return null;
+            final TestEvent event = new TestEvent();
+            event.begin();
+            return event;
+        }
+
+        private static final void stop(Object token, String className, String methodName, String status) {
+            final TestEvent event = (TestEvent) token;
+            event.end();
+            if (!event.shouldCommit()) return;
+            event.className = className;
+            event.methodName = methodName;
+            event.status = status;
+            event.commit();
+        }
+    }
+}
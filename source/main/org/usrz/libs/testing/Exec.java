@@ -16,6 +16,7 @@
 package org.usrz.libs.testing;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -37,15 +38,20 @@ public final class Exec {
         for (String string: commandLine) builder.append(' ').append(string);
         System.out.println(builder.toString());
 
+        final Object event = Events.beginProcess();
         final Process process = Runtime.getRuntime().exec(commandLine);
         process.getOutputStream().close();
 
-        final Thread copiers[] = new Thread[2];
-        copiers[0] = new Thread(new Copier(process.getInputStream(), systemOut, "output"));
-        copiers[1] = new Thread(new Copier(process.getErrorStream(), systemErr, "output"));
-        for (Thread copier: copiers) copier.start();
+        final Copier copiers[] = new Copier[2];
+        copiers[0] = new Copier(process.getInputStream(), systemOut, "output");
+        copiers[1] = new Copier(process.getErrorStream(), systemErr, "output");
+        final Thread threads[] = new Thread[2];
+        for (int x = 0; x < threads.length; x ++) {
+            threads[x] = new Thread(copiers[x]);
+            threads[x].start();
+        }
 
-        return new WaitingProcess(process, copiers);
+        return new WaitingProcess(process, commandLine, copiers, threads, event);
     }
 
     public static final CapturingProcess capture(String[] commandLine)
@@ -113,19 +119,39 @@ public final class Exec {
     private static final class WaitingProcess extends Process {
 
         private final Process process;
-        private final Thread[] copiers;
+        private final String[] commandLine;
+        private final Copier[] copiers;
+        private final Thread[] threads;
+        private Object event;
 
-        private WaitingProcess(Process process, Thread[] copiers) {
+        private WaitingProcess(Process process, String[] commandLine, Copier[] copiers, Thread[] threads, Object event) {
             this.process = process;
+            this.commandLine = commandLine;
             this.copiers = copiers;
+            this.threads = threads;
+            this.event = event;
         }
 
         public int waitFor()
         throws InterruptedException {
-            for (Thread thread: copiers) {
+            for (Thread thread: threads) {
                 thread.join();
             }
-            return process.waitFor();
+            final int exitValue = process.waitFor();
+            event(exitValue);
+            return exitValue;
+        }
+
+        /* End the flight recorder event only once, whichever way we exit (when
+         * exiting through exitValue() or destroy(), copiers might still be
+         * running and bytes are those captured so far) */
+        private void event(int exitValue) {
+            final Object event;
+            synchronized (this) {
+                event = this.event;
+                this.event = null;
+            }
+            Events.endProcess(event, commandLine, exitValue, copiers[0].bytes, copiers[1].bytes);
         }
 
         public int hashCode() {
@@ -149,11 +175,19 @@ public final class Exec {
         }
 
         public int exitValue() {
-            return process.exitValue();
+            final int exitValue = process.exitValue();
+            event(exitValue);
+            return exitValue;
         }
 
         public void destroy() {
             process.destroy();
+            try {
+                event(process.exitValue());
+            } catch (IllegalThreadStateException exception) {
+                /* Not dead yet, record it as killed */
+                event(-1);
+            }
         }
 
         public String toString() {
@@ -168,6 +202,7 @@ public final class Exec {
         private final InputStream input;
         private final OutputStream output;
         private final String name;
+        private volatile long bytes;
 
         private Copier(InputStream input, OutputStream output, String name) {
             this.input = input;
@@ -178,7 +213,21 @@ public final class Exec {
         @Override
         public void run() {
             try {
-                IO.copy(input, output, false);
+                IO.copy(input, new FilterOutputStream(output) {
+                    @Override
+                    public void write(int b)
+                    throws IOException {
+                        out.write(b);
+                        bytes ++;
+                    }
+
+                    @Override
+                    public void write(byte[] buffer, int offset, int length)
+                    throws IOException {
+                        out.write(buffer, offset, length);
+                        bytes += length;
+                    }
+                }, false);
             } catch (IOException exception) {
                 System.err.println("ERROR: Exception copying standard " + name);
                 exception.printStackTrace(System.err);
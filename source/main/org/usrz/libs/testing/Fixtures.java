@@ -0,0 +1,170 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A per-thread scope for test fixtures.
+ *
+ * <p>While a scope is {@linkplain #open() open} in the current thread, all
+ * temporary files created by {@link IO}, all resource streams it opens and
+ * all ports reserved by {@link NET} are tracked by it, and deleted, closed
+ * or released when the scope is {@linkplain #close() closed}. Without any
+ * open scope (as in threads started by a test, which do not inherit the
+ * scope of their parent thread) temporary files are deleted when the JVM
+ * exits and ports are not reserved at all (see {@link NET}).</p>
+ *
+ * <p>Scopes can be nested, closing a scope closes any of its children still
+ * open, and re-activates its parent. The
+ * {@link ParallelTestListener} opens a scope around each test method
+ * invocation, so that tests running in parallel never share fixtures.</p>
+ */
+public final class Fixtures implements Closeable {
+
+    private static final ThreadLocal<Fixtures> scopes = new ThreadLocal<>();
+
+    private final List<File> files = new ArrayList<>();
+    private final List<Integer> ports = new ArrayList<>();
+    private final List<Closeable> closeables = new ArrayList<>();
+    private final Fixtures parent;
+    private final Thread thread;
+    private boolean closed = false;
+
+    private Fixtures(Fixtures parent) {
+        this.parent = parent;
+        thread = Thread.currentThread();
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Open a new scope in the current thread.
+     */
+    public static final Fixtures open() {
+        final Fixtures fixtures = new Fixtures(scopes.get());
+        scopes.set(fixtures);
+        return fixtures;
+    }
+
+    /**
+     * Return the scope open in the current thread or <b>null</b>.
+     */
+    public static final Fixtures current() {
+        return scopes.get();
+    }
+
+    /* ====================================================================== */
+
+    static final boolean track(File file) {
+        final Fixtures fixtures = scopes.get();
+        if (fixtures == null) return false;
+        synchronized (fixtures) {
+            fixtures.files.add(file);
+        }
+        return true;
+    }
+
+    static final boolean track(int port) {
+        final Fixtures fixtures = scopes.get();
+        if (fixtures == null) return false;
+        synchronized (fixtures) {
+            fixtures.ports.add(port);
+        }
+        return true;
+    }
+
+    static final boolean track(Closeable closeable) {
+        final Fixtures fixtures = scopes.get();
+        if (fixtures == null) return false;
+        synchronized (fixtures) {
+            fixtures.closeables.add(closeable);
+        }
+        return true;
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Close this scope, releasing all its fixtures, after closing any child
+     * scope (opened after this one) still open in the current thread.
+     *
+     * @throws IllegalStateException If called from a thread other than the
+     *                               one that opened this scope.
+     */
+    @Override
+    public void close() {
+        if (Thread.currentThread() != thread)
+            throw new IllegalStateException("Scope opened by thread " + thread.getName());
+
+        /* Close children left open on top of us, if we're still active */
+        if (active()) {
+            Fixtures current;
+            while ((current = scopes.get()) != this) current.release();
+        }
+        release();
+    }
+
+    /**
+     * Close all scopes open in the current thread on top of the specified
+     * one (or all of them when <b>null</b>), restoring it as current.
+     */
+    static final void restore(Fixtures previous) {
+        Fixtures current;
+        while (((current = scopes.get()) != null) && (current != previous)) current.close();
+    }
+
+    private boolean active() {
+        for (Fixtures fixtures = scopes.get(); fixtures != null; fixtures = fixtures.parent)
+            if (fixtures == this) return true;
+        return false;
+    }
+
+    private void release() {
+        /* Reactivate our parent, first of all */
+        if (scopes.get() == this) {
+            if (parent == null) scopes.remove();
+            else scopes.set(parent);
+        }
+
+        final List<Closeable> closeables;
+        final List<Integer> ports;
+        final List<File> files;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            closeables = new ArrayList<>(this.closeables);
+            ports = new ArrayList<>(this.ports);
+            files = new ArrayList<>(this.files);
+        }
+
+        for (Closeable closeable: closeables) try {
+            closeable.close();
+        } catch (IOException exception) {
+            System.err.println("ERROR: Unable to close " + closeable);
+            exception.printStackTrace(System.err);
+        }
+
+        for (int port: ports) NET.release(port);
+
+        /* Delete in reverse order, contents before directories */
+        for (int x = files.size() - 1; x >= 0; x --) IO.delete(files.get(x));
+    }
+}
@@ -0,0 +1,122 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+/**
+ * A simple log-linear histogram of non-negative values (normally latencies
+ * in nanoseconds).
+ *
+ * <p>Values are grouped in power-of-two ranges, each split in
+ * {@value #SUB_BUCKETS} linear buckets, so that every recorded value is
+ * approximated with a relative error of about 3%. Histograms are not
+ * thread safe: normally each thread records its own, and all of them are
+ * {@linkplain #add(Histogram) added} together at the end.</p>
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long count = 0;
+    private long total = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    public Histogram() {
+        /* Nothing to do */
+    }
+
+    /* ====================================================================== */
+
+    private static final int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        final int top = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (top - SUB_BITS));
+        return ((top - SUB_BITS + 1) << SUB_BITS) + (sub - SUB_BUCKETS);
+    }
+
+    private static final long highest(int index) {
+        if (index < SUB_BUCKETS) return index;
+        final int shift = (index >>> SUB_BITS) - 1;
+        final long sub = SUB_BUCKETS + (index & (SUB_BUCKETS - 1));
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /* ====================================================================== */
+
+    public void record(long value) {
+        if (value < 0) throw new IllegalArgumentException("Negative value " + value);
+        buckets[index(value)] ++;
+        count ++;
+        total += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    public void add(Histogram histogram) {
+        for (int x = 0; x < BUCKETS; x ++) buckets[x] += histogram.buckets[x];
+        count += histogram.count;
+        total += histogram.total;
+        if (histogram.min < min) min = histogram.min;
+        if (histogram.max > max) max = histogram.max;
+    }
+
+    /* ====================================================================== */
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : ((double) total) / count;
+    }
+
+    /**
+     * Return the (approximate) value below which the specified percentage of
+     * all recorded values fall.
+     */
+    public long getPercentile(double percentile) {
+        if ((percentile < 0) || (percentile > 100))
+            throw new IllegalArgumentException("Invalid percentile " + percentile);
+        if (count == 0) return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int x = 0; x < BUCKETS; x ++) {
+            seen += buckets[x];
+            if (seen >= rank) return Math.max(getMin(), Math.min(highest(x), max));
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.1f, min=%d, p50=%d, p90=%d, p99=%d, p99.9=%d, max=%d",
+                             count, getMean(), getMin(),
+                             getPercentile(50), getPercentile(90), getPercentile(99), getPercentile(99.9),
+                             getMax());
+    }
+}
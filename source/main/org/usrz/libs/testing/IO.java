@@ -25,8 +25,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public final class IO {
 
@@ -34,10 +34,10 @@ public final class IO {
         throw new IllegalStateException("Do not construct");
     }
 
-    private static final List<File> files;
+    private static final Queue<File> files;
 
     static {
-        files = new ArrayList<>();
+        files = new ConcurrentLinkedQueue<>();
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
@@ -46,9 +46,12 @@ public final class IO {
         });
     }
 
-    private static final void delete(File file) {
+    static final void delete(File file) {
         if (file.isFile()) {
+            final Object event = Events.beginTempFile();
+            final long length = event == null ? 0 : file.length();
             if (!file.delete()) System.err.println("Unable to delete file " + file);
+            Events.endTempFile(event, "delete", file, length);
         }
 
         if (file.isDirectory()) {
@@ -75,6 +78,12 @@ public final class IO {
     }
 
     public static final File makeTempFile(String prefix, String suffix)
+    throws IOException {
+        return makeTempFile(prefix, suffix, true);
+    }
+
+    /* Unscoped files are only deleted by their owner, or on exit */
+    static final File makeTempFile(String prefix, String suffix, boolean scoped)
     throws IOException {
         if (prefix == null) prefix = "tmp-";
         if (prefix.length() == 0) prefix = "tmp-";
@@ -84,9 +93,11 @@ public final class IO {
         if (suffix.length() == 0) suffix = ".tmp";
         if (!suffix.startsWith(".")) suffix = "." + suffix;
 
+        final Object event = Events.beginTempFile();
         final File file = File.createTempFile(prefix, suffix);
         file.deleteOnExit();
-        files.add(file);
+        if (!(scoped && Fixtures.track(file))) files.add(file);
+        Events.endTempFile(event, "create", file, 0);
         return file.getCanonicalFile();
     }
 
@@ -101,20 +112,27 @@ public final class IO {
     }
 
     public static final File makeTempDir(String prefix, String suffix)
+    throws IOException {
+        return makeTempDir(prefix, suffix, true);
+    }
+
+    static final File makeTempDir(String prefix, String suffix, boolean scoped)
     throws IOException {
         if (prefix == null) prefix = "tmp-";
         if (prefix.length() == 0) prefix = "tmp-";
         if (!prefix.endsWith("-")) prefix += "-";
 
-        if (suffix == null) prefix = ".tmp";
-        if (prefix.length() == 0) prefix = ".tmp";
-        if (!prefix.startsWith(".")) prefix += ".";
+        if (suffix == null) suffix = ".tmp";
+        if (suffix.length() == 0) suffix = ".tmp";
+        if (!suffix.startsWith(".")) suffix = "." + suffix;
 
+        final Object event = Events.beginTempFile();
         final File file = File.createTempFile(prefix, suffix);
         if (!file.delete()) throw new IOException("Unable to delete file " + file);
         if (!file.mkdirs()) throw new IOException("Unable to create directory " + file);
         file.deleteOnExit();
-        files.add(file);
+        if (!(scoped && Fixtures.track(file))) files.add(file);
+        Events.endTempFile(event, "mkdir", file, 0);
         return file;
     }
 
@@ -123,19 +141,29 @@ public final class IO {
      * ====================================================================== */
 
     public static final InputStream resource(String resource)
+    throws IOException {
+        final Class<?> clazz = caller();
+        final InputStream input = clazz.getResourceAsStream(resource);
+        if (input != null) {
+            Fixtures.track(input);
+            return input;
+        }
+        throw new FileNotFoundException("Unable to find resource \"" + resource + "\" for class " + clazz.getName());
+    }
+
+    static final Class<?> caller()
     throws IOException {
         for (StackTraceElement element: new Throwable().getStackTrace()) {
             String className = element.getClassName();
             if (className.equals(IO.class.getName()))
                 continue;
+            if (className.equals(Bundle.class.getName()))
+                continue;
             if (className.indexOf('$') >= 0)
                 className = className.substring(0, className.indexOf('$'));
 
             try {
-                final Class<?> clazz = Class.forName(className);
-                final InputStream input = clazz.getResourceAsStream(resource);
-                if (input != null) return input;
-                throw new FileNotFoundException("Unable to find resource \"" + resource + "\" for class " + clazz.getName());
+                return Class.forName(className);
             } catch (ClassNotFoundException exception) {
                 throw new IOException("Unable to load class " + className, exception);
             }
@@ -344,10 +372,31 @@ public final class IO {
     public static final File copyTempFile(InputStream input, String prefix, String suffix)
     throws IOException {
         final File file = makeTempFile(prefix, suffix);
+        final Object event = Events.beginTempFile();
         final FileOutputStream output = new FileOutputStream(file);
         copy(input, output);
         output.close();
+        Events.endTempFile(event, "copy", file);
         return file;
     }
 
+    /* ====================================================================== *
+     * EXTRACTING BUNDLES TO TEMPORARY DIRECTORIES                            *
+     * ====================================================================== */
+
+    public static final File copyTempDir(Bundle bundle)
+    throws IOException {
+        return bundle.extractTo(makeTempDir("bundle", "dir"));
+    }
+
+    public static final File copyTempDir(String resource)
+    throws IOException {
+        final Bundle bundle = Bundle.open(resource);
+        try {
+            return copyTempDir(bundle);
+        } finally {
+            bundle.close();
+        }
+    }
+
 }
@@ -15,25 +15,67 @@
  * ========================================================================== */
 package org.usrz.libs.testing;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.ITestContext;
 import org.testng.ITestResult;
 import org.testng.TestListenerAdapter;
 import org.usrz.libs.logging.Log;
 
 public class LoggingTestListener extends TestListenerAdapter {
 
+    private final Map<String, Long> timings = new HashMap<>();
+
+    private static final String EVENT = Events.class.getName();
+
     @Override
     public void onTestStart(ITestResult result) {
         log(result).debug("Running test: \"%s()\"", method(result));
+        final Object event = Events.beginTest();
+        if (event != null) result.setAttribute(EVENT, event);
     }
 
     @Override
     public void onTestSuccess(ITestResult result) {
         log(result).info("Test success: \"%s\" %s", method(result), timing(result));
+        event(result, "success");
+        record(result);
     }
 
     @Override
     public void onTestFailure(ITestResult result) {
         log(result).warn(result.getThrowable(), "Test failure: \"%s\" %s", method(result), timing(result));
+        event(result, "failure");
+        record(result);
+    }
+
+    @Override
+    public void onTestSkipped(ITestResult result) {
+        event(result, "skipped");
+    }
+
+    @Override
+    public void onFinish(ITestContext context) {
+        final Map<String, Long> timings;
+        synchronized (this.timings) {
+            timings = new HashMap<>(this.timings);
+        }
+        ShardingInterceptor.writeTimings(timings);
+    }
+
+    private final void event(ITestResult result, String status) {
+        final Object event = result.removeAttribute(EVENT);
+        Events.endTest(event, result.getTestClass().getName(), method(result), status);
+    }
+
+    private final void record(ITestResult result) {
+        final String className = result.getTestClass().getName();
+        final long elapsed = result.getEndMillis() - result.getStartMillis();
+        synchronized (timings) {
+            final Long total = timings.get(className);
+            timings.put(className, total == null ? elapsed : total + elapsed);
+        }
     }
 
     private final Log log(ITestResult result) {
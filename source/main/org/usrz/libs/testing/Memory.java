@@ -0,0 +1,185 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measure memory allocations (per thread) and garbage collections.
+ *
+ * <p>Allocations are measured using HotSpot's own extension to the
+ * {@link ThreadMXBean}, which might not be available in all JVMs (see
+ * {@link #isAllocationSupported()}). Garbage collections are measured from
+ * the {@link GarbageCollectorMXBean}s, hence are JVM-wide, and will also
+ * account for any other test running in parallel.</p>
+ */
+public final class Memory {
+
+    /** The default number of warmup iterations. */
+    public static final int WARMUP_ITERATIONS = 100;
+    /** The default number of measurement iterations. */
+    public static final int MEASUREMENT_ITERATIONS = 10;
+    /** The default minimum duration, in milliseconds, of GC measurements. */
+    public static final long MEASUREMENT_MILLIS = 100;
+
+    private static final com.sun.management.ThreadMXBean threads;
+    private static final long overhead;
+
+    static {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean hotspot = null;
+        try {
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                hotspot = (com.sun.management.ThreadMXBean) bean;
+                if (!hotspot.isThreadAllocatedMemorySupported()) {
+                    hotspot = null;
+                } else if (!hotspot.isThreadAllocatedMemoryEnabled()) {
+                    hotspot.setThreadAllocatedMemoryEnabled(true);
+                }
+            }
+        } catch (NoClassDefFoundError | UnsupportedOperationException | SecurityException error) {
+            /* Not a HotSpot JVM, or not allowed: no allocation metrics */
+            hotspot = null;
+        }
+        threads = hotspot;
+
+        /* Calibrate the bytes allocated by measuring itself */
+        long minimum = 0;
+        if (threads != null) {
+            minimum = Long.MAX_VALUE;
+            for (int x = 0; x < 100; x ++) {
+                final long before = allocatedBytes();
+                minimum = Math.min(minimum, allocatedBytes() - before);
+            }
+        }
+        overhead = minimum;
+    }
+
+    private Memory() {
+        throw new IllegalStateException("Do not construct");
+    }
+
+    /* ====================================================================== *
+     * ALLOCATIONS                                                            *
+     * ====================================================================== */
+
+    public static final boolean isAllocationSupported() {
+        return threads != null;
+    }
+
+    /**
+     * Return the total number of bytes allocated so far by the current thread.
+     */
+    public static final long allocatedBytes() {
+        if (threads == null) throw new UnsupportedOperationException("Thread allocated memory not supported");
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Run the specified action for a number of warmup iterations, then return
+     * the number of bytes allocated by each of the measurement iterations.
+     */
+    public static final long[] allocations(int warmupIterations, int measurementIterations, Runnable action) {
+        if (warmupIterations < 0) throw new IllegalArgumentException("Negative warmup iterations");
+        if (measurementIterations < 1) throw new IllegalArgumentException("At least one measurement iteration required");
+        if (threads == null) throw new UnsupportedOperationException("Thread allocated memory not supported");
+
+        for (int x = 0; x < warmupIterations; x ++) action.run();
+
+        final long[] allocations = new long[measurementIterations];
+        for (int x = 0; x < measurementIterations; x ++) {
+            final long before = allocatedBytes();
+            action.run();
+            allocations[x] = Math.max(0, allocatedBytes() - before - overhead);
+        }
+        return allocations;
+    }
+
+    /* ====================================================================== *
+     * GARBAGE COLLECTIONS                                                    *
+     * ====================================================================== */
+
+    /**
+     * Return a snapshot of the garbage collections run so far by the JVM.
+     */
+    public static final GarbageCollections collections() {
+        return new GarbageCollections();
+    }
+
+    /**
+     * A snapshot of the number of collections and the time spent collecting
+     * by each {@link GarbageCollectorMXBean}.
+     */
+    public static final class GarbageCollections {
+
+        private final Map<String, Long> counts = new LinkedHashMap<>();
+        private final Map<String, Long> times = new LinkedHashMap<>();
+
+        private GarbageCollections() {
+            for (GarbageCollectorMXBean bean: ManagementFactory.getGarbageCollectorMXBeans()) {
+                counts.put(bean.getName(), Math.max(0, bean.getCollectionCount()));
+                times.put(bean.getName(), Math.max(0, bean.getCollectionTime()));
+            }
+        }
+
+        private GarbageCollections(GarbageCollections after, GarbageCollections before) {
+            for (String name: after.counts.keySet()) {
+                final Long count = before.counts.get(name);
+                final Long time = before.times.get(name);
+                counts.put(name, after.counts.get(name) - (count == null ? 0 : count));
+                times.put(name, after.times.get(name) - (time == null ? 0 : time));
+            }
+        }
+
+        /**
+         * Return the collections run after the specified snapshot was taken.
+         */
+        public GarbageCollections since(GarbageCollections before) {
+            return new GarbageCollections(this, before);
+        }
+
+        public long getCount() {
+            long total = 0;
+            for (long count: counts.values()) total += count;
+            return total;
+        }
+
+        /** The approximate accumulated collection time in milliseconds. */
+        public long getTime() {
+            long total = 0;
+            for (long time: times.values()) total += time;
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            for (String name: counts.keySet()) {
+                final long count = counts.get(name);
+                if (count == 0) continue;
+                if (builder.length() > 0) builder.append(", ");
+                builder.append(name).append(": ")
+                       .append(count).append(" collections, ")
+                       .append(times.get(name)).append(" ms");
+            }
+            return builder.length() == 0 ? "no collections" : builder.toString();
+        }
+    }
+}
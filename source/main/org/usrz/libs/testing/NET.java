@@ -18,9 +18,25 @@ package org.usrz.libs.testing;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Network utilities.
+ *
+ * <p>Ports handed out by {@link #serverPort()} while a {@link Fixtures}
+ * scope is open in the current thread are reserved, and not handed out
+ * again (even to tests running in parallel) until that scope is closed.
+ * Ports handed out outside of any scope are never reserved.</p>
+ */
 public class NET {
 
+    /* How many times we try to get a port not reserved already */
+    private static final int ATTEMPTS = 10;
+
+    /* Ports reserved by open scopes */
+    private static final Set<Integer> ports = ConcurrentHashMap.newKeySet();
+
     private NET() {
         throw new IllegalStateException("Do not construct");
     }
@@ -37,9 +53,30 @@ public class NET {
 
     public static int serverPort(InetAddress address)
     throws IOException {
-        final ServerSocket socket = new ServerSocket(0, 10, address);
-        final int port = socket.getLocalPort();
-        socket.close();
-        return port;
+        final Object event = Events.beginServerPort();
+        for (int attempt = 1; attempt <= ATTEMPTS; attempt ++) {
+            final ServerSocket socket = new ServerSocket(0, 10, address);
+            final int port = socket.getLocalPort();
+            socket.close();
+
+            /* Never hand out a reserved port, even to parallel tests */
+            if (Fixtures.current() == null) {
+                if (ports.contains(port)) continue;
+            } else {
+                if (!ports.add(port)) continue;
+                Fixtures.track(port);
+            }
+            Events.endServerPort(event, address, port, attempt);
+            return port;
+        }
+        throw new IOException("Unable to allocate a free port after " + ATTEMPTS + " attempts");
+    }
+
+    static final boolean reserved(int port) {
+        return ports.contains(port);
+    }
+
+    static final void release(int port) {
+        ports.remove(port);
     }
 }
@@ -0,0 +1,156 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+import org.testng.TestListenerAdapter;
+import org.usrz.libs.logging.Log;
+
+/**
+ * A listener for suites running tests in parallel.
+ *
+ * <p>Each test method invocation (including those fed by data providers)
+ * runs within its own {@link Fixtures} scope, so temporary files, ports and
+ * resources are released as soon as the invocation completes.</p>
+ *
+ * <p>At the end of each <code>&lt;test&gt;</code> the parallel efficiency is
+ * logged: how many threads were busy running test methods on average, over
+ * how many threads were used, and how long was spent at each level of
+ * concurrency.</p>
+ */
+public class ParallelTestListener extends TestListenerAdapter implements IInvokedMethodListener {
+
+    private static final String FIXTURES = Fixtures.class.getName();
+    private static final String PREVIOUS = FIXTURES + ".previous";
+    private static final String STARTED = ParallelTestListener.class.getName();
+
+    private final Log log = new Log(this.getClass());
+
+    private final Map<Integer, Long> levels = new TreeMap<>();
+    private final Set<String> threads = new HashSet<>();
+    private long started = -1;
+    private long last = -1;
+    private int busy = 0;
+    private int peak = 0;
+
+    public ParallelTestListener() {
+        /* Nothing to do */
+    }
+
+    /* ====================================================================== */
+
+    @Override
+    public void beforeInvocation(IInvokedMethod method, ITestResult result) {
+        if (!method.isTestMethod()) return;
+        final Fixtures previous = Fixtures.current();
+        if (previous != null) result.setAttribute(PREVIOUS, previous);
+        result.setAttribute(FIXTURES, Fixtures.open());
+    }
+
+    @Override
+    public void afterInvocation(IInvokedMethod method, ITestResult result) {
+        final Object fixtures = result.removeAttribute(FIXTURES);
+        if (fixtures == null) return;
+
+        /* Close our scope (and its children), whatever the test did */
+        ((Fixtures) fixtures).close();
+        Fixtures.restore((Fixtures) result.removeAttribute(PREVIOUS));
+    }
+
+    /* ====================================================================== */
+
+    @Override
+    public synchronized void onStart(ITestContext context) {
+        levels.clear();
+        threads.clear();
+        started = last = System.nanoTime();
+        busy = peak = 0;
+    }
+
+    @Override
+    public void onTestStart(ITestResult result) {
+        result.setAttribute(STARTED, Boolean.TRUE);
+        change(+1);
+    }
+
+    @Override
+    public void onTestSuccess(ITestResult result) {
+        if (result.removeAttribute(STARTED) != null) change(-1);
+    }
+
+    @Override
+    public void onTestFailure(ITestResult result) {
+        if (result.removeAttribute(STARTED) != null) change(-1);
+    }
+
+    @Override
+    public void onTestSkipped(ITestResult result) {
+        if (result.removeAttribute(STARTED) != null) change(-1);
+    }
+
+    @Override
+    public synchronized void onFinish(ITestContext context) {
+        if (started < 0) return;
+        change(0);
+
+        final long wall = last - started;
+        long work = 0;
+        for (Map.Entry<Integer, Long> entry: levels.entrySet()) work += entry.getKey() * entry.getValue();
+        if ((wall == 0) || threads.isEmpty()) return;
+
+        final double average = ((double) work) / wall;
+        log.info("Parallel efficiency for \"%s\": %.2f busy threads on average, %d threads used (%.1f%%), peak %d, %s wall time",
+                 context.getName(), average, threads.size(), average * 100 / threads.size(), peak, seconds(wall));
+
+        final StringBuilder builder = new StringBuilder();
+        for (Map.Entry<Integer, Long> entry: levels.entrySet()) {
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(entry.getKey()).append(" busy: ").append(seconds(entry.getValue()))
+                   .append(String.format(" (%.1f%%)", entry.getValue() * 100.0 / wall));
+        }
+        log.info("Time spent by busy threads for \"%s\": %s", context.getName(), builder);
+    }
+
+    /* ====================================================================== */
+
+    private synchronized void change(int delta) {
+        final long now = System.nanoTime();
+        if (started < 0) started = last = now;
+
+        final Long time = levels.get(busy);
+        levels.put(busy, (time == null ? 0 : time) + (now - last));
+        last = now;
+
+        busy += delta;
+        if (busy > peak) peak = busy;
+        if (delta > 0) threads.add(Thread.currentThread().getName());
+    }
+
+    private static final String seconds(long nanos) {
+        final long elapsed = nanos / 1000000;
+        final long millis = elapsed % 1000;
+        final long seconds = (elapsed - millis) / 1000;
+        return String.format("%d.%03d sec", seconds, millis);
+    }
+}
@@ -0,0 +1,288 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.testng.IMethodInstance;
+import org.testng.IMethodInterceptor;
+import org.testng.ITestContext;
+import org.usrz.libs.logging.Log;
+
+/**
+ * A TestNG {@link IMethodInterceptor} splitting test classes across a number
+ * of shards (normally one per forked JVM) balancing their execution time.
+ *
+ * <p>The shard to run is selected by the {@value #SHARD_INDEX} and
+ * {@value #SHARD_COUNT} system properties; when those are not specified all
+ * methods are run. Durations are read from the {@link Properties} file named
+ * by the {@value #SHARD_TIMINGS} property, as recorded by the
+ * {@link LoggingTestListener}; classes without a recorded timing are assumed
+ * to take as long as the average known class.</p>
+ *
+ * <p>While sharded, each JVM records its timings in its own per-shard file
+ * (<code>&lt;timings&gt;.&lt;index&gt;</code>), never read while splitting.
+ * Once all shards completed, run this class' {@link #main(String[])} (or
+ * {@link #mergeTimings(File)}) to merge them into the timings file for the
+ * next run.</p>
+ *
+ * <p>Classes are assigned using the <em>longest processing time</em>
+ * heuristic: slowest first, each to the least loaded shard. Ties are broken
+ * by class name and shard index, so every JVM computes the same split.</p>
+ */
+public class ShardingInterceptor implements IMethodInterceptor {
+
+    /** The system property specifying the (zero-based) shard to run. */
+    public static final String SHARD_INDEX = "testing.shard.index";
+    /** The system property specifying the total number of shards. */
+    public static final String SHARD_COUNT = "testing.shard.count";
+    /** The system property specifying the file holding test timings. */
+    public static final String SHARD_TIMINGS = "testing.shard.timings";
+
+    private final Log log = new Log(this.getClass());
+
+    public ShardingInterceptor() {
+        /* Nothing to do */
+    }
+
+    @Override
+    public List<IMethodInstance> intercept(List<IMethodInstance> methods, ITestContext context) {
+        final String index = System.getProperty(SHARD_INDEX);
+        final String count = System.getProperty(SHARD_COUNT);
+        if ((index == null) || (count == null)) return methods;
+
+        final int shardIndex = Integer.parseInt(index);
+        final int shardCount = Integer.parseInt(count);
+        if ((shardCount < 1) || (shardIndex < 0) || (shardIndex >= shardCount))
+            throw new IllegalArgumentException("Invalid shard " + shardIndex + " of " + shardCount);
+
+        /* Group all our methods by class name */
+        final Map<String, List<IMethodInstance>> classes = new LinkedHashMap<>();
+        for (IMethodInstance method: methods) {
+            final String className = method.getMethod().getRealClass().getName();
+            List<IMethodInstance> list = classes.get(className);
+            if (list == null) classes.put(className, list = new ArrayList<>());
+            list.add(method);
+        }
+
+        /* Assign each class to its shard */
+        final Map<String, Integer> shards = assign(classes.keySet(), readTimings(), shardCount);
+
+        final List<IMethodInstance> result = new ArrayList<>();
+        for (Map.Entry<String, List<IMethodInstance>> entry: classes.entrySet()) {
+            if (shards.get(entry.getKey()) == shardIndex) result.addAll(entry.getValue());
+        }
+
+        log.info("Running %d of %d test methods in shard %d of %d", result.size(), methods.size(), shardIndex, shardCount);
+        return result;
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Assign the specified classes to a number of shards, returning a
+     * {@link Map} associating each class name with its shard index.
+     */
+    static final Map<String, Integer> assign(Set<String> classNames, Map<String, Long> timings, int shardCount) {
+
+        /* Calculate the default timing for classes we know nothing about */
+        long total = 0, known = 0;
+        for (String className: classNames) {
+            final Long timing = timings.get(className);
+            if (timing == null) continue;
+            total += timing;
+            known ++;
+        }
+        final long average = known == 0 ? 1 : Math.max(1, total / known);
+
+        final Map<String, Long> durations = new HashMap<>();
+        for (String className: classNames) {
+            final Long timing = timings.get(className);
+            durations.put(className, timing == null ? average : timing);
+        }
+
+        /* Longest first, then by name to keep the split deterministic */
+        final List<String> sorted = new ArrayList<>(classNames);
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String name1, String name2) {
+                final int compare = durations.get(name2).compareTo(durations.get(name1));
+                return compare != 0 ? compare : name1.compareTo(name2);
+            }
+        });
+
+        /* Each class goes to the least loaded shard (lowest index on ties) */
+        final long[] loads = new long[shardCount];
+        final Map<String, Integer> shards = new HashMap<>();
+        for (String className: sorted) {
+            int shard = 0;
+            for (int x = 1; x < shardCount; x ++) if (loads[x] < loads[shard]) shard = x;
+            loads[shard] += durations.get(className);
+            shards.put(className, shard);
+        }
+
+        return shards;
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Read the timings from the timings file itself, never from per-shard
+     * files: those are written while shards run, and reading them would make
+     * different shards compute different splits.
+     */
+    static final Map<String, Long> readTimings() {
+        final Map<String, Long> timings = new HashMap<>();
+        final String fileName = System.getProperty(SHARD_TIMINGS);
+        if (fileName != null) readTimings(new File(fileName), timings);
+        return timings;
+    }
+
+    private static final void readTimings(File file, Map<String, Long> timings) {
+        if (!file.isFile()) return;
+
+        final Properties properties = new Properties();
+        try {
+            final FileInputStream input = new FileInputStream(file);
+            try {
+                properties.load(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException exception) {
+            System.err.println("ERROR: Unable to read timings from " + file);
+            exception.printStackTrace(System.err);
+            return;
+        }
+
+        for (String className: properties.stringPropertyNames()) try {
+            timings.put(className, Long.parseLong(properties.getProperty(className)));
+        } catch (NumberFormatException exception) {
+            System.err.println("ERROR: Invalid timing for " + className + " in " + file);
+        }
+    }
+
+    /**
+     * Write timings to the timings file or, when running a shard, to its own
+     * per-shard file (<code>&lt;timings&gt;.&lt;index&gt;</code>), so that
+     * shards never overwrite each other's timings, nor change the timings
+     * other shards split on. Per-shard files are merged into the timings
+     * file by {@link #mergeTimings(File)} once all shards completed.
+     */
+    static final synchronized void writeTimings(Map<String, Long> timings) {
+        final String fileName = System.getProperty(SHARD_TIMINGS);
+        if (fileName == null) return;
+
+        final String index = System.getProperty(SHARD_INDEX);
+        final File file = new File(index == null ? fileName : fileName + "." + index).getAbsoluteFile();
+
+        /* Merge with what other suites in this shard already recorded */
+        final Map<String, Long> merged = new HashMap<>();
+        readTimings(file, merged);
+        merged.putAll(timings);
+
+        try {
+            writeTimings(file, merged);
+        } catch (IOException exception) {
+            System.err.println("ERROR: Unable to write timings to " + file);
+            exception.printStackTrace(System.err);
+        }
+    }
+
+    /**
+     * Merge all per-shard files into the specified timings file, deleting
+     * them. This must be run <em>after</em> all shards completed.
+     */
+    public static final void mergeTimings(File file)
+    throws IOException {
+        file = file.getAbsoluteFile();
+
+        final Map<String, Long> timings = new HashMap<>();
+        readTimings(file, timings);
+
+        final File[] siblings = file.getParentFile().listFiles();
+        final List<File> shards = new ArrayList<>();
+        final String prefix = file.getName() + ".";
+        if (siblings != null) for (File sibling: siblings) {
+            final String name = sibling.getName();
+            if (name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+"))
+                shards.add(sibling);
+        }
+        if (shards.isEmpty()) return;
+
+        Collections.sort(shards);
+        for (File shard: shards) readTimings(shard, timings);
+
+        writeTimings(file, timings);
+        for (File shard: shards) {
+            if (!shard.delete()) System.err.println("Unable to delete file " + shard);
+        }
+    }
+
+    /**
+     * Merge all per-shard files into the timings file specified on the
+     * command line, normally run by the build once all shards completed.
+     */
+    public static void main(String[] args)
+    throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: " + ShardingInterceptor.class.getName() + " <timings file>");
+            System.exit(1);
+        }
+        mergeTimings(new File(args[0]));
+    }
+
+    /* Replace the file atomically, never truncating it in place */
+    private static final void writeTimings(File file, Map<String, Long> timings)
+    throws IOException {
+        final Properties properties = new Properties();
+        for (Map.Entry<String, Long> entry: timings.entrySet())
+            properties.setProperty(entry.getKey(), entry.getValue().toString());
+
+        final File temp = File.createTempFile(file.getName() + "-", ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            final FileOutputStream output = new FileOutputStream(temp);
+            try {
+                properties.store(output, "Test class timings (milliseconds)");
+            } finally {
+                output.close();
+            }
+
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException exception) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            if (temp.exists() && !temp.delete()) System.err.println("Unable to delete file " + temp);
+        }
+    }
+}
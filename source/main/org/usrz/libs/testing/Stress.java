@@ -0,0 +1,233 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A concurrency stress harness, running the same {@link Action} over a
+ * number of threads, all started together.
+ *
+ * <p>Each thread runs the action either a fixed number of times, or until
+ * a deadline expires, timing every single operation into a per-thread
+ * {@link Histogram}. The first exception thrown by any thread stops all of
+ * them; all exceptions are collected in the {@link Result}.</p>
+ *
+ * <p>Threads are created by a {@link ThreadFactory}, defaulting to the
+ * {@linkplain Executors#defaultThreadFactory() default} platform threads;
+ * on JVMs supporting them, a virtual threads factory can be specified.</p>
+ */
+public final class Stress {
+
+    private Stress() {
+        throw new IllegalStateException("Do not construct");
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Run the action the specified number of times in each thread.
+     */
+    public static final Result run(int threads, long operations, Action action)
+    throws InterruptedException {
+        return run(Executors.defaultThreadFactory(), threads, operations, Long.MAX_VALUE, action);
+    }
+
+    /**
+     * Run the action in each thread until the specified time expires.
+     */
+    public static final Result run(int threads, long duration, TimeUnit unit, Action action)
+    throws InterruptedException {
+        return run(Executors.defaultThreadFactory(), threads, Long.MAX_VALUE, unit.toNanos(duration), action);
+    }
+
+    /**
+     * Run the action in each thread created by the specified factory, until
+     * either the number of operations (per thread) is reached, or the
+     * specified number of nanoseconds expires, whichever comes first.
+     */
+    public static final Result run(ThreadFactory factory, int threads, long operations, long nanos, Action action)
+    throws InterruptedException {
+        if (threads < 1) throw new IllegalArgumentException("At least one thread required");
+        if (operations < 1) throw new IllegalArgumentException("At least one operation required");
+        if (nanos < 1) throw new IllegalArgumentException("Invalid duration " + nanos + " ns");
+
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Worker[] workers = new Worker[threads];
+        final Thread[] running = new Thread[threads];
+        final List<Throwable> exceptions = Collections.synchronizedList(new ArrayList<Throwable>());
+        final AtomicBoolean stop = new AtomicBoolean(false);
+
+        for (int x = 0; x < threads; x ++) {
+            workers[x] = new Worker(x, operations, nanos, action, ready, start, stop, exceptions);
+            running[x] = factory.newThread(workers[x]);
+            running[x].start();
+        }
+
+        /* Wait for all threads to be ready, then release them together */
+        ready.await();
+        final long started = System.nanoTime();
+        start.countDown();
+
+        try {
+            for (Thread thread: running) thread.join();
+        } catch (InterruptedException exception) {
+            stop.set(true);
+            throw exception;
+        }
+        final long elapsed = System.nanoTime() - started;
+
+        final Histogram latencies = new Histogram();
+        for (Worker worker: workers) latencies.add(worker.latencies);
+        return new Result(threads, elapsed, latencies, new ArrayList<>(exceptions));
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * An action to run concurrently.
+     */
+    public interface Action {
+
+        /**
+         * Run the action once, the thread index goes from zero to the number
+         * of threads (exclusive), while the iteration counts the number of
+         * times this action was run by the thread.
+         */
+        public void run(int thread, long iteration)
+        throws Exception;
+
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * The result of a stress run.
+     */
+    public static final class Result {
+
+        private final int threads;
+        private final long elapsed;
+        private final Histogram latencies;
+        private final List<Throwable> exceptions;
+
+        private Result(int threads, long elapsed, Histogram latencies, List<Throwable> exceptions) {
+            this.threads = threads;
+            this.elapsed = elapsed;
+            this.latencies = latencies;
+            this.exceptions = Collections.unmodifiableList(exceptions);
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        /** The total number of operations successfully run by all threads. */
+        public long getOperations() {
+            return latencies.getCount();
+        }
+
+        /** The wall-clock time of the whole run in nanoseconds. */
+        public long getElapsedNanos() {
+            return elapsed;
+        }
+
+        /** The number of operations per second, across all threads. */
+        public double getThroughput() {
+            return elapsed == 0 ? 0 : latencies.getCount() * 1000000000.0 / elapsed;
+        }
+
+        /** The latency of each operation in nanoseconds. */
+        public Histogram getLatencies() {
+            return latencies;
+        }
+
+        public List<Throwable> getExceptions() {
+            return exceptions;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d threads, %d operations in %.3f ms, %.1f ops/sec, %d exceptions, latency ns: %s",
+                                 threads, getOperations(), elapsed / 1000000.0, getThroughput(),
+                                 exceptions.size(), latencies);
+        }
+    }
+
+    /* ====================================================================== */
+
+    private static final class Worker implements Runnable {
+
+        private final Histogram latencies = new Histogram();
+        private final int index;
+        private final long operations;
+        private final long nanos;
+        private final Action action;
+        private final CountDownLatch ready;
+        private final CountDownLatch start;
+        private final AtomicBoolean stop;
+        private final List<Throwable> exceptions;
+
+        private Worker(int index, long operations, long nanos, Action action,
+                       CountDownLatch ready, CountDownLatch start,
+                       AtomicBoolean stop, List<Throwable> exceptions) {
+            this.index = index;
+            this.operations = operations;
+            this.nanos = nanos;
+            this.action = action;
+            this.ready = ready;
+            this.start = start;
+            this.stop = stop;
+            this.exceptions = exceptions;
+        }
+
+        @Override
+        public void run() {
+            ready.countDown();
+            try {
+                start.await();
+            } catch (InterruptedException exception) {
+                exceptions.add(exception);
+                return;
+            }
+
+            final long started = System.nanoTime();
+            long before = started;
+            for (long iteration = 0; iteration < operations; iteration ++) {
+                if (stop.get()) return;
+                try {
+                    action.run(index, iteration);
+                } catch (Throwable throwable) {
+                    exceptions.add(throwable);
+                    stop.set(true);
+                    return;
+                }
+                final long after = System.nanoTime();
+                latencies.record(after - before);
+                if (after - started >= nanos) return;
+                before = after;
+            }
+        }
+    }
+}
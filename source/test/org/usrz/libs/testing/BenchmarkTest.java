@@ -0,0 +1,67 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import org.testng.annotations.Test;
+
+public class BenchmarkTest extends AbstractTest {
+
+    @Test
+    public void testBenchmark()
+    throws Exception {
+        final Benchmark.Result result = benchmark("hash", 2, 10, new Benchmark.Task() {
+            private int counter = 0;
+
+            @Override
+            public void run(Blackhole blackhole) {
+                blackhole.consume(Integer.toString(counter ++).hashCode());
+            }
+        });
+
+        assertTrue(result.getBatchSize() > 0, "Invalid batch size");
+        assertEquals(result.getSamples().length + result.getOutliers(), 10);
+        assertTrue(result.getMin() <= result.getPercentile(50), "Minimum above median");
+        assertTrue(result.getPercentile(50) <= result.getMax(), "Median above maximum");
+        assertTrue(result.getLowerBound() <= result.getUpperBound(), "Invalid confidence interval");
+    }
+
+    @Test
+    public void testFasterThan()
+    throws Exception {
+        final Benchmark.Result fast = benchmark("fast", 1, 5, new Benchmark.Task() {
+            @Override
+            public void run(Blackhole blackhole) {
+                blackhole.consume(System.nanoTime());
+            }
+        });
+
+        final Benchmark.Result slow = benchmark("slow", 1, 5, new Benchmark.Task() {
+            @Override
+            public void run(Blackhole blackhole)
+            throws Exception {
+                Thread.sleep(1);
+            }
+        });
+
+        assertFasterThan(fast, slow, 10);
+        try {
+            assertFasterThan(slow, fast);
+        } catch (AssertionError error) {
+            return;
+        }
+        fail("Slow benchmark asserted faster");
+    }
+}
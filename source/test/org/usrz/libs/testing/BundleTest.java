@@ -0,0 +1,101 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.testng.annotations.Test;
+
+public class BundleTest extends AbstractTest {
+
+    @Test
+    public void testEntries()
+    throws Exception {
+        final Bundle bundle = Bundle.open("bundle.zip");
+        try {
+            assertEquals(bundle.names(), new HashSet<>(Arrays.asList("foo.txt", "dir/bar.txt", "dir/sub/baz.txt")));
+            assertEquals(new String(bundle.read("dir/sub/baz.txt"), "UTF-8"), "baz\n");
+        } finally {
+            bundle.close();
+        }
+    }
+
+    @Test(expectedExceptions=FileNotFoundException.class,
+          expectedExceptionsMessageRegExp="^Unable to find entry \"dir\".*")
+    public void testEntryNotFound()
+    throws Exception {
+        final Bundle bundle = Bundle.open("bundle.zip");
+        try {
+            bundle.read("dir");
+        } finally {
+            bundle.close();
+        }
+    }
+
+    @Test
+    public void testLazyExtraction()
+    throws Exception {
+        final Bundle bundle = Bundle.open("bundle.zip");
+        try {
+            final File file = bundle.file("dir/bar.txt");
+            assertEquals(new String(IO.read(file), "UTF-8"), "bar\n");
+            assertSame(bundle.file("dir/bar.txt"), file);
+
+            final File directory = file.getParentFile().getParentFile();
+            assertFalse(new File(directory, "foo.txt").exists(), "Untouched entry extracted");
+            assertFalse(new File(directory, "dir/sub/baz.txt").exists(), "Untouched entry extracted");
+        } finally {
+            bundle.close();
+        }
+    }
+
+    @Test
+    public void testCopyTempDir()
+    throws Exception {
+        final File directory = IO.copyTempDir("bundle.zip");
+        assertEquals(new String(IO.read(new File(directory, "foo.txt")), "UTF-8"), "foo\n");
+        assertEquals(new String(IO.read(new File(directory, "dir/bar.txt")), "UTF-8"), "bar\n");
+        assertEquals(new String(IO.read(new File(directory, "dir/sub/baz.txt")), "UTF-8"), "baz\n");
+    }
+
+    @Test
+    public void testBundleOwnsDirectory()
+    throws Exception {
+        final Bundle bundle = Bundle.open("bundle.zip");
+        final File file;
+        try {
+            /* Extracted in a scope, but owned by the bundle */
+            final Fixtures fixtures = Fixtures.open();
+            try {
+                file = bundle.file("foo.txt");
+            } finally {
+                fixtures.close();
+            }
+
+            assertTrue(file.isFile(), "Entry deleted by scope");
+            assertSame(bundle.file("foo.txt"), file);
+            assertTrue(file.getParentFile().getName().startsWith("bundle-"), "Wrong directory " + file.getParentFile());
+        } finally {
+            bundle.close();
+        }
+
+        assertFalse(file.exists(), "Entry not deleted by bundle");
+        assertFalse(file.getParentFile().exists(), "Directory not deleted by bundle");
+    }
+}
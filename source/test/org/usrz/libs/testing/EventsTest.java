@@ -0,0 +1,97 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.Set;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class EventsTest extends AbstractTest {
+
+    /* Started before any test, so that the Test event of "testRecord" is recorded */
+    private Recording recording;
+
+    @BeforeClass
+    public void startRecording()
+    throws Exception {
+        final Configuration configuration = Configuration.create(new InputStreamReader(IO.resource(Events.SETTINGS), "UTF-8"));
+        recording = new Recording(configuration);
+        recording.start();
+    }
+
+    @AfterClass(alwaysRun=true)
+    public void closeRecording() {
+        if (recording != null) recording.close();
+    }
+
+    @Test
+    public void testRecord()
+    throws Exception {
+        IO.copyTempFile("foobar".getBytes("UTF-8"));
+        NET.serverPort();
+        final Exec.CapturingProcess process = Exec.capture(new String[] { "echo", "foobar" });
+        assertEquals(process.waitFor(), 0);
+    }
+
+    @Test(dependsOnMethods="testRecord")
+    public void testEvents()
+    throws Exception {
+        final File file = IO.makeTempFile("events", "jfr");
+        recording.stop();
+        recording.dump(file.toPath());
+
+        final Set<String> names = new HashSet<>();
+        boolean copy = false, process = false, test = false;
+        for (RecordedEvent event: RecordingFile.readAllEvents(file.toPath())) {
+            final String name = event.getEventType().getName();
+            names.add(name);
+
+            if (name.equals("org.usrz.libs.testing.TempFile") && event.getString("operation").equals("copy")) {
+                assertEquals(event.getLong("bytes"), 6L);
+                copy = true;
+            }
+
+            if (name.equals("org.usrz.libs.testing.Process")) {
+                assertEquals(event.getString("commandLine"), "echo foobar");
+                assertEquals(event.getInt("exitValue"), 0);
+                assertEquals(event.getLong("outputBytes"), 7L);
+                process = true;
+            }
+
+            if (name.equals("org.usrz.libs.testing.Test")) {
+                assertEquals(event.getString("className"), EventsTest.class.getName());
+                assertEquals(event.getString("methodName"), "testRecord");
+                assertEquals(event.getString("status"), "success");
+                test = true;
+            }
+        }
+
+        assertTrue(copy, "No temporary file events in " + names);
+        assertTrue(names.contains("org.usrz.libs.testing.ServerPort"), "No server port events in " + names);
+        assertTrue(process, "No process events in " + names);
+        assertTrue(test, "No test events in " + names);
+    }
+}
@@ -0,0 +1,187 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class FixturesTest extends AbstractTest {
+
+    @Test
+    public void testScope()
+    throws Exception {
+        final Fixtures previous = Fixtures.current();
+        final Fixtures fixtures = Fixtures.open();
+        final File file, directory;
+        final int port;
+        try {
+            assertSame(Fixtures.current(), fixtures);
+
+            file = IO.makeTempFile();
+            directory = IO.makeTempDir();
+            IO.copy("foobar.txt", new File(directory, "foobar.txt"));
+            port = NET.serverPort();
+            assertTrue(file.isFile(), "File not created");
+            assertTrue(directory.isDirectory(), "Directory not created");
+            assertTrue(NET.reserved(port), "Port not reserved");
+        } finally {
+            fixtures.close();
+        }
+
+        assertSame(Fixtures.current(), previous);
+        assertFalse(file.exists(), "File not deleted");
+        assertFalse(directory.exists(), "Directory not deleted");
+        assertFalse(NET.reserved(port), "Port not released");
+    }
+
+    @Test
+    public void testNestedScopes()
+    throws Exception {
+        final Fixtures previous = Fixtures.current();
+        final Fixtures outer = Fixtures.open();
+        try {
+            final File outerFile = IO.makeTempFile();
+
+            final Fixtures inner = Fixtures.open();
+            final File innerFile;
+            try {
+                assertSame(Fixtures.current(), inner);
+                innerFile = IO.makeTempFile();
+            } finally {
+                inner.close();
+            }
+
+            assertSame(Fixtures.current(), outer);
+            assertFalse(innerFile.exists(), "Inner file not deleted");
+            assertTrue(outerFile.exists(), "Outer file deleted");
+
+            outer.close();
+            assertSame(Fixtures.current(), previous);
+            assertFalse(outerFile.exists(), "Outer file not deleted");
+        } finally {
+            Fixtures.restore(previous);
+        }
+    }
+
+    @Test
+    public void testLeakedChildScope()
+    throws Exception {
+        final Fixtures previous = Fixtures.current();
+        final Fixtures outer = Fixtures.open();
+        final File innerFile;
+        try {
+            /* Open a child scope and never close it */
+            Fixtures.open();
+            innerFile = IO.makeTempFile();
+        } finally {
+            outer.close();
+        }
+
+        assertSame(Fixtures.current(), previous, "Leaked scope still current");
+        assertFalse(innerFile.exists(), "Leaked scope file not deleted");
+
+        /* Back in the previous scope, files are not tracked by the leaked one */
+        final File file = IO.makeTempFile();
+        final Fixtures fixtures = Fixtures.open();
+        fixtures.close();
+        assertTrue(file.exists(), "Unscoped file deleted");
+    }
+
+    @Test
+    public void testRestore()
+    throws Exception {
+        final Fixtures previous = Fixtures.current();
+        final Fixtures outer = Fixtures.open();
+        try {
+            Fixtures.open();
+            Fixtures.open();
+            final File file = IO.makeTempFile();
+
+            Fixtures.restore(outer);
+            assertSame(Fixtures.current(), outer);
+            assertFalse(file.exists(), "File not deleted");
+        } finally {
+            Fixtures.restore(previous);
+        }
+        assertSame(Fixtures.current(), previous);
+    }
+
+    @Test
+    public void testUnscopedPorts()
+    throws Exception {
+        final Fixtures fixtures = Fixtures.open();
+        try {
+            final int reserved = NET.serverPort();
+            assertTrue(NET.reserved(reserved), "Port not reserved");
+
+            /* Threads do not inherit scopes, so this one has none */
+            final Throwable[] failure = new Throwable[1];
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        assertNull(Fixtures.current());
+                        for (int x = 0; x < 10000; x ++) {
+                            final int port = NET.serverPort();
+                            assertTrue(port != reserved, "Scoped port handed out");
+                            assertFalse(NET.reserved(port), "Unscoped port reserved");
+                        }
+                    } catch (Throwable throwable) {
+                        failure[0] = throwable;
+                    }
+                }
+            });
+            thread.start();
+            thread.join();
+            if (failure[0] != null) throw new AssertionError("Unscoped allocation failed", failure[0]);
+        } finally {
+            fixtures.close();
+        }
+    }
+
+    @Test
+    public void testParallelPorts()
+    throws Exception {
+        final Set<Integer> ports = Collections.synchronizedSet(new HashSet<Integer>());
+        final CyclicBarrier barrier = new CyclicBarrier(8);
+        final Stress.Result result = stress(8, 1, new Stress.Action() {
+            @Override
+            public void run(int thread, long iteration)
+            throws Exception {
+                /* Keep all scopes open until every thread allocated its ports */
+                final Fixtures fixtures = Fixtures.open();
+                try {
+                    for (int x = 0; x < 25; x ++) {
+                        assertTrue(ports.add(NET.serverPort()), "Port handed out twice");
+                    }
+                    barrier.await(30, TimeUnit.SECONDS);
+                } finally {
+                    fixtures.close();
+                }
+            }
+        });
+
+        assertEquals(result.getOperations(), 8L);
+        assertEquals(ports.size(), 200);
+        for (int port: ports) assertFalse(NET.reserved(port), "Port not released");
+    }
+}
@@ -0,0 +1,79 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import org.testng.annotations.Test;
+
+public class MemoryTest extends AbstractTest {
+
+    private static long counter = 0;
+
+    @Test
+    public void testNoAllocations()
+    throws Exception {
+        assertAllocatesAtMost(0, new Runnable() {
+            @Override
+            public void run() {
+                counter ++;
+            }
+        });
+    }
+
+    @Test
+    public void testAllocations()
+    throws Exception {
+        final long[] allocations = Memory.allocations(10, 5, new Runnable() {
+            @Override
+            public void run() {
+                counter += new byte[4096].length;
+            }
+        });
+
+        for (long allocation: allocations) assertTrue(allocation >= 4096, "Only " + allocation + " bytes allocated");
+    }
+
+    @Test(expectedExceptions=AssertionError.class,
+          expectedExceptionsMessageRegExp="^Allocated \\d+ bytes in iteration 1 of 10.*")
+    public void testAllocationsExceeded()
+    throws Exception {
+        assertAllocatesAtMost(1024, new Runnable() {
+            @Override
+            public void run() {
+                counter += new byte[4096].length;
+            }
+        });
+    }
+
+    @Test
+    public void testGarbageCollections()
+    throws Exception {
+        final Memory.GarbageCollections before = Memory.collections();
+        System.gc();
+        assertTrue(Memory.collections().since(before).getCount() > 0, "No garbage collections recorded");
+    }
+
+    @Test(expectedExceptions=AssertionError.class,
+          expectedExceptionsMessageRegExp="^Expected at most 0 garbage collections but got \\d+.*")
+    public void testGarbageCollectionsExceeded()
+    throws Exception {
+        assertNoGc(new Runnable() {
+            @Override
+            public void run() {
+                counter += new byte[1024 * 1024].length;
+            }
+        });
+    }
+}
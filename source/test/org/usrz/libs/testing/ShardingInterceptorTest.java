@@ -0,0 +1,190 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.testng.annotations.Test;
+
+public class ShardingInterceptorTest extends AbstractTest {
+
+    @Test
+    public void testLongestProcessingTime()
+    throws Exception {
+        final Map<String, Long> timings = new HashMap<>();
+        timings.put("A", 70L);
+        timings.put("B", 50L);
+        timings.put("C", 40L);
+        timings.put("D", 30L);
+        timings.put("E", 10L);
+
+        final Map<String, Integer> shards = ShardingInterceptor.assign(timings.keySet(), timings, 2);
+
+        /* A(70) -> 0, B(50) -> 1, C(40) -> 1, D(30) -> 0, E(10) -> 1 */
+        assertEquals(shards.get("A"), Integer.valueOf(0));
+        assertEquals(shards.get("B"), Integer.valueOf(1));
+        assertEquals(shards.get("C"), Integer.valueOf(1));
+        assertEquals(shards.get("D"), Integer.valueOf(0));
+        assertEquals(shards.get("E"), Integer.valueOf(1));
+    }
+
+    @Test
+    public void testUnknownTimings()
+    throws Exception {
+        final Map<String, Long> timings = new HashMap<>();
+        timings.put("A", 100L);
+
+        final Set<String> classes = new LinkedHashSet<>(Arrays.asList("D", "C", "B", "A"));
+        final Map<String, Integer> shards = ShardingInterceptor.assign(classes, timings, 3);
+
+        /* Unknown classes take the average (100), ties are broken by name */
+        assertEquals(shards.get("A"), Integer.valueOf(0));
+        assertEquals(shards.get("B"), Integer.valueOf(1));
+        assertEquals(shards.get("C"), Integer.valueOf(2));
+        assertEquals(shards.get("D"), Integer.valueOf(0));
+    }
+
+    @Test
+    public void testDeterministic()
+    throws Exception {
+        final Map<String, Long> timings = new HashMap<>();
+        final Set<String> forward = new LinkedHashSet<>();
+        final Set<String> backward = new LinkedHashSet<>();
+        for (int x = 0; x < 50; x ++) {
+            timings.put("Class" + x, (long) (x % 7));
+            forward.add("Class" + x);
+            backward.add("Class" + (49 - x));
+        }
+
+        assertEquals(ShardingInterceptor.assign(forward, timings, 4),
+                     ShardingInterceptor.assign(backward, timings, 4));
+    }
+
+    @Test
+    public void testStableSplit()
+    throws Exception {
+        final File directory = IO.makeTempDir("timings", "dir");
+        final File timings = new File(directory, "timings.properties");
+        final Set<String> classes = new LinkedHashSet<>(Arrays.asList("A", "B", "C", "D", "E"));
+
+        final Map<String, Long> baseline = new HashMap<>();
+        baseline.put("A", 70L);
+        baseline.put("B", 50L);
+        baseline.put("C", 40L);
+        baseline.put("D", 30L);
+        baseline.put("E", 10L);
+
+        final Map<String, Map<String, Integer>> splits = withProperties(timings, "0", new Callable<Map<String, Map<String, Integer>>>() {
+            @Override
+            public Map<String, Map<String, Integer>> call()
+            throws Exception {
+                ShardingInterceptor.writeTimings(baseline);
+                ShardingInterceptor.mergeTimings(timings);
+                final Map<String, Integer> first = ShardingInterceptor.assign(classes, ShardingInterceptor.readTimings(), 2);
+
+                /* Shard 0 completes, writing wildly different timings */
+                final Map<String, Long> shard0 = new HashMap<>();
+                shard0.put("A", 1L);
+                shard0.put("E", 5000L);
+                ShardingInterceptor.writeTimings(shard0);
+
+                /* Shard 1 starts afterwards, it must compute the same split */
+                final Map<String, Integer> second = ShardingInterceptor.assign(classes, ShardingInterceptor.readTimings(), 2);
+
+                final Map<String, Map<String, Integer>> splits = new HashMap<>();
+                splits.put("first", first);
+                splits.put("second", second);
+                return splits;
+            }
+        });
+
+        final Map<String, Integer> first = splits.get("first");
+        final Map<String, Integer> second = splits.get("second");
+        assertEquals(second, first);
+
+        /* Shard 0 runs what the first split says, shard 1 the second */
+        final Set<String> ran = new HashSet<>();
+        for (String className: classes) {
+            if (first.get(className) == 0) assertTrue(ran.add(className), className + " ran twice");
+            if (second.get(className) == 1) assertTrue(ran.add(className), className + " ran twice");
+        }
+        assertEquals(ran, classes);
+    }
+
+    @Test
+    public void testMergeTimings()
+    throws Exception {
+        final File directory = IO.makeTempDir("timings", "dir");
+        final File timings = new File(directory, "timings.properties");
+
+        final Map<String, Long> merged = withProperties(timings, null, new Callable<Map<String, Long>>() {
+            @Override
+            public Map<String, Long> call()
+            throws Exception {
+                final Map<String, Long> base = new HashMap<>();
+                base.put("A", 10L);
+                base.put("B", 20L);
+                ShardingInterceptor.writeTimings(base);
+
+                System.setProperty(ShardingInterceptor.SHARD_INDEX, "0");
+                ShardingInterceptor.writeTimings(Collections.singletonMap("A", 15L));
+                System.setProperty(ShardingInterceptor.SHARD_INDEX, "1");
+                ShardingInterceptor.writeTimings(Collections.singletonMap("C", 30L));
+
+                assertTrue(new File(timings.getPath() + ".0").isFile(), "Shard 0 timings not written");
+                assertTrue(new File(timings.getPath() + ".1").isFile(), "Shard 1 timings not written");
+                assertEquals(ShardingInterceptor.readTimings(), base, "Shard timings read before merging");
+
+                ShardingInterceptor.main(new String[] { timings.getPath() });
+                assertFalse(new File(timings.getPath() + ".0").exists(), "Shard 0 timings not deleted");
+                assertFalse(new File(timings.getPath() + ".1").exists(), "Shard 1 timings not deleted");
+                return ShardingInterceptor.readTimings();
+            }
+        });
+
+        assertEquals(merged.get("A"), Long.valueOf(15));
+        assertEquals(merged.get("B"), Long.valueOf(20));
+        assertEquals(merged.get("C"), Long.valueOf(30));
+        assertEquals(merged.size(), 3);
+    }
+
+    /* ====================================================================== */
+
+    private static <T> T withProperties(File timings, String index, Callable<T> callable)
+    throws Exception {
+        final String oldTimings = System.getProperty(ShardingInterceptor.SHARD_TIMINGS);
+        final String oldIndex = System.getProperty(ShardingInterceptor.SHARD_INDEX);
+        try {
+            System.setProperty(ShardingInterceptor.SHARD_TIMINGS, timings.getPath());
+            if (index == null) System.clearProperty(ShardingInterceptor.SHARD_INDEX);
+            else System.setProperty(ShardingInterceptor.SHARD_INDEX, index);
+            return callable.call();
+        } finally {
+            if (oldTimings == null) System.clearProperty(ShardingInterceptor.SHARD_TIMINGS);
+            else System.setProperty(ShardingInterceptor.SHARD_TIMINGS, oldTimings);
+            if (oldIndex == null) System.clearProperty(ShardingInterceptor.SHARD_INDEX);
+            else System.setProperty(ShardingInterceptor.SHARD_INDEX, oldIndex);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.testing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.Test;
+
+public class StressTest extends AbstractTest {
+
+    @Test
+    public void testOperations()
+    throws Exception {
+        final AtomicLong counter = new AtomicLong();
+        final Stress.Result result = stress(4, 10000, new Stress.Action() {
+            @Override
+            public void run(int thread, long iteration) {
+                counter.incrementAndGet();
+            }
+        });
+
+        assertEquals(counter.get(), 40000L);
+        assertEquals(result.getOperations(), 40000L);
+        assertEquals(result.getLatencies().getCount(), 40000L);
+        assertTrue(result.getThroughput() > 0, "No throughput");
+    }
+
+    @Test
+    public void testDuration()
+    throws Exception {
+        final Stress.Result result = stress(2, 100, TimeUnit.MILLISECONDS, new Stress.Action() {
+            @Override
+            public void run(int thread, long iteration)
+            throws Exception {
+                Thread.sleep(1);
+            }
+        });
+
+        assertTrue(result.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(100), "Stopped too early");
+        assertTrue(result.getLatencies().getMin() >= TimeUnit.MILLISECONDS.toNanos(1), "Latency too low");
+    }
+
+    @Test
+    public void testExceptions()
+    throws Exception {
+        final Stress.Result result = Stress.run(4, 1000, new Stress.Action() {
+            @Override
+            public void run(int thread, long iteration) {
+                if ((thread == 2) && (iteration == 10)) throw new IllegalStateException("Failed");
+            }
+        });
+
+        assertEquals(result.getExceptions().size(), 1);
+        assertEquals(result.getExceptions().get(0).getMessage(), "Failed");
+    }
+
+    @Test
+    public void testHistogram()
+    throws Exception {
+        final Histogram histogram = new Histogram();
+        for (int x = 1; x <= 1000; x ++) histogram.record(x * 1000);
+
+        assertEquals(histogram.getCount(), 1000L);
+        assertEquals(histogram.getMin(), 1000L);
+        assertEquals(histogram.getMax(), 1000000L);
+        assertTrue(Math.abs(histogram.getPercentile(50) - 500000) <= 500000 / 32, "Wrong median " + histogram.getPercentile(50));
+        assertTrue(Math.abs(histogram.getPercentile(99) - 990000) <= 990000 / 32, "Wrong p99 " + histogram.getPercentile(99));
+    }
+}